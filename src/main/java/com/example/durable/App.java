@@ -6,18 +6,55 @@ import java.time.Duration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.example.durable.engine.RetentionPolicy;
 import com.example.durable.example.OnboardingWorkflow;
 
 public final class App {
     private static final Logger log = LoggerFactory.getLogger(App.class);
     private static final Duration STALE_TIMEOUT = Duration.ofSeconds(10);
+    private static final int COMPACTION_BATCH_SIZE = 100;
+    private static final String ASSUME_FINISHED_FLAG = "--assume-finished";
 
     public static void main(String[] args) {
         if (args.length < 2) {
             System.err.println("Usage: java -jar app.jar <start|resume|crash-after> <workflow_id> [step_number]");
+            System.err.println("       java -jar app.jar compact <retention_days> [archive_dir] [" + ASSUME_FINISHED_FLAG + "]");
             System.exit(1);
         }
 
+        String jdbcUrl = "jdbc:sqlite:" + Path.of("durable.db").toAbsolutePath();
+        WorkflowRunner runner = new WorkflowRunner(jdbcUrl, STALE_TIMEOUT);
+
+        if ("compact".equals(args[0])) {
+            Path archiveDir = null;
+            boolean assumeFinished = false;
+            for (int i = 2; i < args.length; i++) {
+                if (ASSUME_FINISHED_FLAG.equals(args[i])) {
+                    assumeFinished = true;
+                } else if (archiveDir == null) {
+                    archiveDir = Path.of(args[i]);
+                } else {
+                    System.err.println("Unexpected argument: " + args[i]);
+                    System.exit(1);
+                }
+            }
+            RetentionPolicy policy;
+            try {
+                policy = new RetentionPolicy(Duration.ofDays(Long.parseLong(args[1])), COMPACTION_BATCH_SIZE, archiveDir);
+            } catch (IllegalArgumentException e) {
+                System.err.println("retention_days must be a non-negative whole number: " + args[1]);
+                System.exit(1);
+                return;
+            }
+            try {
+                runner.compactHistory(policy, assumeFinished);
+            } catch (RuntimeException e) {
+                log.error("Compaction failed", e);
+                System.exit(1);
+            }
+            return;
+        }
+
         String command = args[0];
         String workflowId = args[1];
         long crashAfter = 0;
@@ -29,8 +66,6 @@ public final class App {
             crashAfter = Long.parseLong(args[2]);
         }
 
-        String jdbcUrl = "jdbc:sqlite:" + Path.of("durable.db").toAbsolutePath();
-        WorkflowRunner runner = new WorkflowRunner(jdbcUrl, STALE_TIMEOUT);
         Workflow workflow = new OnboardingWorkflow();
 
         try {
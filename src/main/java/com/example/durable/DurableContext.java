@@ -5,6 +5,7 @@ import com.example.durable.engine.SequenceTracker;
 import com.example.durable.engine.SQLiteStepStore;
 import com.example.durable.engine.StepExecutor;
 import com.example.durable.engine.StepResultSerializer;
+import com.example.durable.engine.StepStore;
 import com.fasterxml.jackson.core.type.TypeReference;
 
 import java.time.Duration;
@@ -15,7 +16,10 @@ public final class DurableContext {
     private final SequenceTracker tracker;
 
     public DurableContext(String workflowId, String jdbcUrl, long crashAfter, Duration staleTimeout) {
-        SQLiteStepStore store = new SQLiteStepStore(jdbcUrl, staleTimeout);
+        this(workflowId, new SQLiteStepStore(jdbcUrl, staleTimeout), crashAfter);
+    }
+
+    public DurableContext(String workflowId, StepStore store, long crashAfter) {
         this.tracker = new SequenceTracker();
         StepResultSerializer serializer = new StepResultSerializer();
         CrashSimulator crashSimulator = new CrashSimulator(crashAfter);
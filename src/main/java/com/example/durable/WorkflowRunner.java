@@ -1,23 +1,55 @@
 package com.example.durable;
 
 import java.time.Duration;
+import java.time.Instant;
+
+import com.example.durable.engine.HistoryCompactor;
+import com.example.durable.engine.RetentionPolicy;
+import com.example.durable.engine.SQLiteStepStore;
+import com.example.durable.engine.StepStore;
 
 public final class WorkflowRunner {
-    private final String jdbcUrl;
-    private final Duration staleTimeout;
+    private final StepStore store;
 
     public WorkflowRunner(String jdbcUrl, Duration staleTimeout) {
-        this.jdbcUrl = jdbcUrl;
-        this.staleTimeout = staleTimeout;
+        this(new SQLiteStepStore(jdbcUrl, staleTimeout));
+    }
+
+    /**
+     * Runs workflows against the given store, e.g. an {@code InMemoryStepStore} for ephemeral workloads.
+     */
+    public WorkflowRunner(StepStore store) {
+        this.store = store;
     }
 
     public void start(String workflowId, Workflow workflow, long crashAfter) throws Exception {
-        DurableContext ctx = new DurableContext(workflowId, jdbcUrl, crashAfter, staleTimeout);
-        workflow.run(ctx);
+        run(workflowId, workflow, crashAfter);
     }
 
     public void resume(String workflowId, Workflow workflow, long crashAfter) throws Exception {
-        DurableContext ctx = new DurableContext(workflowId, jdbcUrl, crashAfter, staleTimeout);
+        run(workflowId, workflow, crashAfter);
+    }
+
+    public int compactHistory(RetentionPolicy policy) {
+        return compactHistory(policy, false);
+    }
+
+    /**
+     * @param assumeFinished also expire workflows that predate completion markers; see
+     *                       {@link HistoryCompactor#backfillCompletionMarkers()}
+     */
+    public int compactHistory(RetentionPolicy policy, boolean assumeFinished) {
+        HistoryCompactor compactor = new HistoryCompactor(store, policy);
+        if (assumeFinished) {
+            compactor.backfillCompletionMarkers();
+        }
+        return compactor.compact();
+    }
+
+    private void run(String workflowId, Workflow workflow, long crashAfter) throws Exception {
+        store.markWorkflowStarted(workflowId);
+        DurableContext ctx = new DurableContext(workflowId, store, crashAfter);
         workflow.run(ctx);
+        store.markWorkflowCompleted(workflowId, Instant.now());
     }
 }
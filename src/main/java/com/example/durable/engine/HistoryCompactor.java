@@ -0,0 +1,83 @@
+package com.example.durable.engine;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies a {@link RetentionPolicy}: workflows that completed before the retention window are archived
+ * (optionally) and deleted in small batches so concurrent step writers only ever wait on one short
+ * transaction, and freed pages are handed back incrementally after each batch. Workflows that never
+ * finished are kept regardless of age.
+ */
+public final class HistoryCompactor {
+    private static final Logger log = LoggerFactory.getLogger(HistoryCompactor.class);
+    private static final int VACUUM_PAGES_PER_BATCH = 512;
+
+    private final StepStore store;
+    private final RetentionPolicy policy;
+    private final StepArchiver archiver;
+
+    public HistoryCompactor(StepStore store, RetentionPolicy policy) {
+        this.store = store;
+        this.policy = policy;
+        this.archiver = policy.isArchiving() ? new StepArchiver(policy.getArchiveDirectory()) : null;
+    }
+
+    /**
+     * Marks every workflow without a completion marker whose steps are all older than the retention window
+     * as completed, so histories written before markers existed can expire. Only call this when every
+     * such workflow is known to be finished; an abandoned or crashed one is purged on the next pass.
+     *
+     * @return number of workflows marked
+     */
+    public int backfillCompletionMarkers() {
+        Instant cutoff = Instant.now().minus(policy.getRetainFor());
+        int marked = store.backfillCompletionMarkers(cutoff);
+        log.info("Backfilled completion markers for {} workflow(s) idle since before {}", marked, cutoff);
+        return marked;
+    }
+
+    /**
+     * Runs one compaction pass.
+     *
+     * @return number of workflows removed from the store
+     */
+    public int compact() {
+        return compact(Instant.now().minus(policy.getRetainFor()));
+    }
+
+    /**
+     * Runs one compaction pass, removing completed workflows that finished before {@code cutoff}.
+     *
+     * @return number of workflows removed from the store
+     */
+    public int compact(Instant cutoff) {
+        int purged = 0;
+        String lastWorkflowId = null;
+        while (true) {
+            List<String> expired = store.findExpiredWorkflows(cutoff, lastWorkflowId, policy.getBatchSize());
+            if (expired.isEmpty()) {
+                break;
+            }
+            lastWorkflowId = expired.get(expired.size() - 1);
+            if (archiver != null) {
+                List<StepRecord> records = new ArrayList<>();
+                for (String workflowId : expired) {
+                    records.addAll(store.findByWorkflow(workflowId));
+                }
+                archiver.append(records);
+            }
+            purged += store.deleteExpiredWorkflows(expired, cutoff);
+            store.reclaimSpace(VACUUM_PAGES_PER_BATCH);
+            if (expired.size() < policy.getBatchSize()) {
+                break;
+            }
+        }
+        log.info("Compacted {} workflow(s) completed before {}", purged, cutoff);
+        return purged;
+    }
+}
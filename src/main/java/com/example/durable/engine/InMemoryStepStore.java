@@ -0,0 +1,604 @@
+package com.example.durable.engine;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Keeps steps in per-workflow concurrent maps for workloads that do not need fsync-per-step durability.
+ *
+ * <p>When a snapshot directory is given, every committed write is appended to {@code steps.log}. A
+ * background thread fsyncs the log every flush interval, so a crash loses at most the writes of the last
+ * interval, and replaces the log with a full {@code snapshot.jsonl} once it has grown large. On start the
+ * snapshot is loaded, the log replayed on top of it and the result written back as a fresh snapshot, so
+ * new entries are never appended after a line torn by the crash. Workflow completion markers and purges
+ * are logged alongside the steps, so retention behaves the same across restarts.
+ */
+public final class InMemoryStepStore implements StepStore, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(InMemoryStepStore.class);
+    private static final String SNAPSHOT_FILE = "snapshot.jsonl";
+    private static final String LOG_FILE = "steps.log";
+    private static final String ROTATED_LOG_FILE = "steps.log.old";
+    private static final long SNAPSHOT_AFTER_LOG_ENTRIES = 10_000;
+    private static final Duration BUSY_BACKOFF = Duration.ofMillis(5);
+    private static final Duration BUSY_TIMEOUT = Duration.ofSeconds(30);
+    private static final String STARTED = "started";
+    private static final String COMPLETED = "completed";
+    private static final String PURGED = "purged";
+
+    private final Duration staleInProgressAfter;
+    private final Map<String, Map<String, StepRecord>> workflows = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<String, Instant> completedWorkflows = new ConcurrentSkipListMap<>();
+    private final Map<StepRef, BufferedTransaction> claims = new ConcurrentHashMap<>();
+    private final Path snapshotDirectory;
+    private final ObjectMapper mapper;
+    private final ScheduledExecutorService snapshotter;
+    private final Object logLock = new Object();
+    // Held across an fsync of the log, so a rotation cannot close the stream being synced; taken before logLock
+    private final Object flushLock = new Object();
+    private FileOutputStream logStream;
+    private Writer logWriter;
+    private long logEntries;
+
+    public InMemoryStepStore(Duration staleInProgressAfter) {
+        this(staleInProgressAfter, null, null);
+    }
+
+    /**
+     * @param snapshotDirectory where the snapshot and append log live, or {@code null} for a purely
+     *                          in-memory store
+     * @param flushInterval     how often the log is forced to disk; bounds the loss window. Must be at least
+     *                          one millisecond when a directory is given
+     */
+    public InMemoryStepStore(Duration staleInProgressAfter, Path snapshotDirectory, Duration flushInterval) {
+        this.staleInProgressAfter = staleInProgressAfter;
+        this.snapshotDirectory = snapshotDirectory;
+        this.mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        if (snapshotDirectory == null) {
+            this.snapshotter = null;
+            return;
+        }
+        // Checked before recovery rewrites the directory
+        Objects.requireNonNull(flushInterval, "flushInterval");
+        if (flushInterval.toMillis() <= 0) {
+            throw new IllegalArgumentException("flushInterval must be at least one millisecond");
+        }
+        try {
+            Files.createDirectories(snapshotDirectory);
+            recover();
+            writeSnapshot();
+            Files.deleteIfExists(snapshotDirectory.resolve(ROTATED_LOG_FILE));
+            Files.deleteIfExists(snapshotDirectory.resolve(LOG_FILE));
+            openLog();
+            forceDirectory();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to open snapshot directory " + snapshotDirectory, e);
+        }
+        this.snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "step-store-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long intervalMillis = flushInterval.toMillis();
+        snapshotter.scheduleWithFixedDelay(this::checkpointQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Optional<StepRecord> find(String workflowId, String stepKey) {
+        Map<String, StepRecord> steps = workflows.get(workflowId);
+        return steps == null ? Optional.empty() : Optional.ofNullable(steps.get(stepKey));
+    }
+
+    @Override
+    public void insertInProgress(StepRecord record) {
+        withTransaction(tx -> {
+            tx.insertInProgress(record);
+            return null;
+        });
+    }
+
+    @Override
+    public void updateStatus(StepRecord record) {
+        publish(List.of(record));
+    }
+
+    @Override
+    public void markFailedIfStale(StepRecord record) {
+        Instant cutoff = Instant.now().minus(staleInProgressAfter);
+        if (record.getStatus() == StepStatus.IN_PROGRESS && record.getUpdatedAt().isBefore(cutoff)) {
+            log.warn("Marking stale IN_PROGRESS step as FAILED: {}", record.getStepKey());
+            updateStatus(record.withStatus(StepStatus.FAILED, record.getOutput()));
+        }
+    }
+
+    @Override
+    public void markWorkflowStarted(String workflowId) {
+        persist(markerLine(STARTED, workflowId, null), 1, () -> {
+            completedWorkflows.remove(workflowId);
+            return true;
+        });
+    }
+
+    @Override
+    public void markWorkflowCompleted(String workflowId, Instant completedAt) {
+        persist(markerLine(COMPLETED, workflowId, completedAt), 1, () -> {
+            completedWorkflows.put(workflowId, completedAt);
+            return true;
+        });
+    }
+
+    @Override
+    public List<String> findExpiredWorkflows(Instant cutoff, String afterWorkflowId, int limit) {
+        Map<String, Instant> candidates = afterWorkflowId == null
+                ? completedWorkflows
+                : completedWorkflows.tailMap(afterWorkflowId, false);
+        List<String> workflowIds = new ArrayList<>();
+        for (Map.Entry<String, Instant> entry : candidates.entrySet()) {
+            if (workflowIds.size() >= limit) {
+                break;
+            }
+            if (entry.getValue().isBefore(cutoff)) {
+                workflowIds.add(entry.getKey());
+            }
+        }
+        return workflowIds;
+    }
+
+    @Override
+    public List<StepRecord> findByWorkflow(String workflowId) {
+        Map<String, StepRecord> steps = workflows.get(workflowId);
+        if (steps == null) {
+            return List.of();
+        }
+        List<StepRecord> records = new ArrayList<>(steps.values());
+        records.sort(Comparator.comparingLong(StepRecord::getSequence));
+        return records;
+    }
+
+    @Override
+    public int backfillCompletionMarkers(Instant cutoff) {
+        int marked = 0;
+        for (Map.Entry<String, Map<String, StepRecord>> workflow : workflows.entrySet()) {
+            String workflowId = workflow.getKey();
+            Optional<Instant> lastUpdate = workflow.getValue().values().stream()
+                    .map(StepRecord::getUpdatedAt)
+                    .max(Comparator.naturalOrder());
+            if (completedWorkflows.containsKey(workflowId) || lastUpdate.isEmpty()
+                    || !lastUpdate.get().isBefore(cutoff)) {
+                continue;
+            }
+            boolean backfilled = persist(markerLine(COMPLETED, workflowId, lastUpdate.get()), 1,
+                    () -> completedWorkflows.putIfAbsent(workflowId, lastUpdate.get()) == null);
+            if (backfilled) {
+                marked++;
+            }
+        }
+        return marked;
+    }
+
+    @Override
+    public int deleteExpiredWorkflows(List<String> workflowIds, Instant cutoff) {
+        int deleted = 0;
+        for (String workflowId : workflowIds) {
+            Instant completedAt = completedWorkflows.get(workflowId);
+            if (completedAt == null || !completedAt.isBefore(cutoff)) {
+                continue;
+            }
+            // Only removes the marker that was checked; a resume clears or renews it and wins
+            boolean purged = persist(markerLine(PURGED, workflowId, null), 1, () -> {
+                if (!completedWorkflows.remove(workflowId, completedAt)) {
+                    return false;
+                }
+                workflows.remove(workflowId);
+                return true;
+            });
+            if (purged) {
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Purged workflows are dropped from the maps immediately; the log shrinks at the next snapshot.
+     */
+    @Override
+    public void reclaimSpace(int pages) {
+        // nothing to do
+    }
+
+    /**
+     * Buffers writes until {@code work} returns and publishes them together; on failure they are
+     * discarded, matching a SQLite rollback. Inserting a step claims it until the transaction ends, so a
+     * concurrent transaction on the same step backs off and retries, like a writer waiting on
+     * {@code SQLITE_BUSY}, and then sees the committed result instead of running the step again.
+     */
+    @Override
+    public <T> T withTransaction(TransactionalWork<T> work) {
+        long deadline = System.nanoTime() + BUSY_TIMEOUT.toNanos();
+        while (true) {
+            BufferedTransaction tx = new BufferedTransaction();
+            try {
+                T result = work.apply(tx);
+                tx.commit();
+                return result;
+            } catch (SQLException e) {
+                if (!BUSY_SQL_STATE.equals(e.getSQLState())) {
+                    throw new IllegalStateException("In-memory transaction failed", e);
+                }
+                if (System.nanoTime() > deadline) {
+                    throw new IllegalStateException("In-memory store busy after retries", e);
+                }
+            } finally {
+                tx.release();
+            }
+            try {
+                Thread.sleep(BUSY_BACKOFF.toMillis());
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted during backoff", ie);
+            }
+        }
+    }
+
+    /**
+     * Stops the background snapshotter and writes a final snapshot.
+     */
+    @Override
+    public void close() {
+        if (snapshotter == null) {
+            return;
+        }
+        snapshotter.shutdown();
+        try {
+            snapshotter.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            snapshot();
+        } finally {
+            synchronized (logLock) {
+                try {
+                    logWriter.close();
+                } catch (IOException e) {
+                    log.error("Failed to close step log", e);
+                }
+            }
+        }
+    }
+
+    private Map<String, StepRecord> stepsOf(String workflowId) {
+        return workflows.computeIfAbsent(workflowId, id -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Applies writes to the maps and, when persisting, to the append log. The log lock only covers the
+     * map update and the append, so the log order per step always matches the in-memory state and a log
+     * rotation sees either all of a batch or none of it; serialization happens before it is taken.
+     */
+    private void publish(List<StepRecord> records) {
+        String lines = null;
+        if (snapshotDirectory != null) {
+            StringBuilder builder = new StringBuilder();
+            for (StepRecord record : records) {
+                builder.append(toJson(record)).append('\n');
+            }
+            lines = builder.toString();
+        }
+        persist(lines, records.size(), () -> {
+            for (StepRecord record : records) {
+                stepsOf(record.getWorkflowId()).put(record.getStepKey(), record);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Runs {@code mutation} and, if it reports a change and the store is persistent, appends the
+     * pre-serialized {@code lines} to the log under the same lock.
+     */
+    private boolean persist(String lines, int entries, BooleanSupplier mutation) {
+        if (snapshotDirectory == null) {
+            return mutation.getAsBoolean();
+        }
+        synchronized (logLock) {
+            if (!mutation.getAsBoolean()) {
+                return false;
+            }
+            try {
+                logWriter.write(lines);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to append to step log", e);
+            }
+            logEntries += entries;
+            return true;
+        }
+    }
+
+    /**
+     * Forces every write published so far to disk.
+     */
+    public void flush() {
+        if (snapshotDirectory == null) {
+            return;
+        }
+        synchronized (flushLock) {
+            FileOutputStream stream;
+            try {
+                synchronized (logLock) {
+                    logWriter.flush();
+                    stream = logStream;
+                }
+                // Writers only wait for the copy into the OS, not for the fsync
+                stream.getFD().sync();
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to flush step log", e);
+            }
+        }
+    }
+
+    /**
+     * Writes the full state to {@code snapshot.jsonl} and starts a new, empty append log.
+     */
+    public void snapshot() {
+        if (snapshotDirectory == null) {
+            return;
+        }
+        Path rotatedLog = snapshotDirectory.resolve(ROTATED_LOG_FILE);
+        try {
+            // A leftover rotated log means an earlier snapshot failed; its entries are only safe once the
+            // snapshot below has been written, so it must not be overwritten by another rotation
+            boolean rotate = !Files.exists(rotatedLog);
+            if (rotate) {
+                synchronized (flushLock) {
+                    synchronized (logLock) {
+                        // Writes flushed before the rotation stay durable in the rotated log
+                        logWriter.flush();
+                        logStream.getFD().sync();
+                        logWriter.close();
+                        Files.move(snapshotDirectory.resolve(LOG_FILE), rotatedLog);
+                        openLog();
+                    }
+                    // The new log must survive a power failure before anything synced into it counts
+                    forceDirectory();
+                }
+            }
+            // Copied after the rotation and without the lock: every write made before it is already in the
+            // maps, and anything newer is also in the new log, whose replay is idempotent
+            writeSnapshot();
+            Files.deleteIfExists(rotatedLog);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write snapshot to " + snapshotDirectory, e);
+        }
+    }
+
+    private void checkpointQuietly() {
+        try {
+            flush();
+            boolean logIsLarge;
+            synchronized (logLock) {
+                logIsLarge = logEntries >= SNAPSHOT_AFTER_LOG_ENTRIES;
+            }
+            if (logIsLarge) {
+                snapshot();
+            }
+        } catch (RuntimeException e) {
+            log.error("Step log checkpoint failed", e);
+        }
+    }
+
+    private void writeSnapshot() throws IOException {
+        Path tmp = snapshotDirectory.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+             Writer writer = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8))) {
+            for (Map<String, StepRecord> steps : workflows.values()) {
+                for (StepRecord record : steps.values()) {
+                    writer.write(toJson(record));
+                    writer.write('\n');
+                }
+            }
+            for (Map.Entry<String, Instant> marker : completedWorkflows.entrySet()) {
+                writer.write(markerLine(COMPLETED, marker.getKey(), marker.getValue()));
+            }
+            writer.flush();
+            fos.getFD().sync();
+        }
+        Files.move(tmp, snapshotDirectory.resolve(SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+    }
+
+    private void forceDirectory() throws IOException {
+        try (FileChannel dir = FileChannel.open(snapshotDirectory, StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+    }
+
+    private void recover() throws IOException {
+        int loaded = 0;
+        for (String file : List.of(SNAPSHOT_FILE, ROTATED_LOG_FILE, LOG_FILE)) {
+            Path path = snapshotDirectory.resolve(file);
+            if (!Files.exists(path)) {
+                continue;
+            }
+            try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    try {
+                        replay(mapper.readTree(line));
+                    } catch (JsonProcessingException e) {
+                        // A torn final line is expected after a crash mid-write
+                        log.warn("Skipping unreadable entry in {}", path);
+                        continue;
+                    }
+                    loaded++;
+                }
+            }
+        }
+        if (loaded > 0) {
+            log.info("Recovered {} log entries from {}", loaded, snapshotDirectory);
+        }
+    }
+
+    private void openLog() throws IOException {
+        logStream = new FileOutputStream(snapshotDirectory.resolve(LOG_FILE).toFile(), true);
+        logWriter = new BufferedWriter(new OutputStreamWriter(logStream, StandardCharsets.UTF_8));
+        logEntries = 0;
+    }
+
+    private void replay(JsonNode node) {
+        String workflowId = node.get("workflowId").asText();
+        JsonNode op = node.get("op");
+        if (op == null) {
+            StepRecord record = fromJson(node);
+            stepsOf(workflowId).put(record.getStepKey(), record);
+            return;
+        }
+        switch (op.asText()) {
+            case STARTED -> completedWorkflows.remove(workflowId);
+            case COMPLETED -> completedWorkflows.put(workflowId, Instant.parse(node.get("completedAt").asText()));
+            case PURGED -> {
+                completedWorkflows.remove(workflowId);
+                workflows.remove(workflowId);
+            }
+            default -> log.warn("Skipping unknown log entry {}", op.asText());
+        }
+    }
+
+    private String toJson(StepRecord record) {
+        try {
+            return mapper.writeValueAsString(record);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize step", e);
+        }
+    }
+
+    private String markerLine(String op, String workflowId, Instant completedAt) {
+        if (snapshotDirectory == null) {
+            return null;
+        }
+        ObjectNode node = mapper.createObjectNode();
+        node.put("op", op);
+        node.put("workflowId", workflowId);
+        if (completedAt != null) {
+            node.put("completedAt", completedAt.toString());
+        }
+        try {
+            return mapper.writeValueAsString(node) + '\n';
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize workflow marker", e);
+        }
+    }
+
+    private StepRecord fromJson(JsonNode node) {
+        JsonNode output = node.get("output");
+        return new StepRecord(
+                node.get("workflowId").asText(),
+                node.get("stepKey").asText(),
+                node.get("stepId").asText(),
+                node.get("sequence").asLong(),
+                StepStatus.valueOf(node.get("status").asText()),
+                output == null || output.isNull() ? null : output.asText(),
+                Instant.parse(node.get("updatedAt").asText()));
+    }
+
+    private static SQLException busy(String stepKey) {
+        return new SQLException("Step is being written by another transaction: " + stepKey, BUSY_SQL_STATE);
+    }
+
+    private record StepRef(String workflowId, String stepKey) {
+    }
+
+    private final class BufferedTransaction implements Transaction {
+        private final Map<String, StepRecord> writes = new LinkedHashMap<>();
+        private final List<StepRef> claimed = new ArrayList<>();
+
+        @Override
+        public Optional<StepRecord> select(String workflowId, String stepKey) {
+            StepRecord pending = writes.get(stepKey);
+            return pending != null ? Optional.of(pending) : find(workflowId, stepKey);
+        }
+
+        @Override
+        public void insertInProgress(StepRecord record) throws SQLException {
+            if (writes.containsKey(record.getStepKey())) {
+                throw new IllegalStateException("Step already exists: " + record.getStepKey());
+            }
+            StepRef ref = new StepRef(record.getWorkflowId(), record.getStepKey());
+            if (claims.putIfAbsent(ref, this) != null) {
+                throw busy(record.getStepKey());
+            }
+            claimed.add(ref);
+            // Another transaction may have committed this step after our select; retry to read its result
+            if (find(record.getWorkflowId(), record.getStepKey()).isPresent()) {
+                throw busy(record.getStepKey());
+            }
+            writes.put(record.getStepKey(), record);
+        }
+
+        @Override
+        public void updateStatus(StepRecord record) {
+            writes.put(record.getStepKey(), record);
+        }
+
+        private void commit() throws SQLException {
+            if (writes.isEmpty()) {
+                return;
+            }
+            for (StepRef ref : claimed) {
+                if (find(ref.workflowId(), ref.stepKey()).isPresent()) {
+                    throw busy(ref.stepKey());
+                }
+            }
+            publish(new ArrayList<>(writes.values()));
+        }
+
+        private void release() {
+            for (StepRef ref : claimed) {
+                claims.remove(ref, this);
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.example.durable.engine;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Objects;
+
+public final class RetentionPolicy {
+    private final Duration retainFor;
+    private final int batchSize;
+    private final Path archiveDirectory;
+
+    /**
+     * @param retainFor        how long a workflow is kept after its most recent run returned normally; a resume
+     *                         restarts the clock
+     * @param batchSize        number of workflows purged per transaction
+     * @param archiveDirectory where purged steps are exported, or {@code null} to drop them
+     */
+    public RetentionPolicy(Duration retainFor, int batchSize, Path archiveDirectory) {
+        this.retainFor = Objects.requireNonNull(retainFor, "retainFor");
+        if (retainFor.isNegative()) {
+            throw new IllegalArgumentException("retainFor must not be negative");
+        }
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.batchSize = batchSize;
+        this.archiveDirectory = archiveDirectory;
+    }
+
+    public Duration getRetainFor() {
+        return retainFor;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public Path getArchiveDirectory() {
+        return archiveDirectory;
+    }
+
+    public boolean isArchiving() {
+        return archiveDirectory != null;
+    }
+}
@@ -9,12 +9,14 @@ import java.sql.Statement;
 import java.sql.Timestamp;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public final class SQLiteStepStore {
+public final class SQLiteStepStore implements StepStore {
     private static final Logger log = LoggerFactory.getLogger(SQLiteStepStore.class);
     private static final int MAX_BUSY_RETRIES = 5;
     private static final Duration BUSY_BACKOFF = Duration.ofMillis(200);
@@ -32,6 +34,8 @@ public final class SQLiteStepStore {
         withRetry(conn -> {
             try {
                 try (Statement stmt = conn.createStatement()) {
+                    // Only takes effect on a fresh database; existing files need a one-off VACUUM
+                    stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
                     stmt.execute("PRAGMA journal_mode=WAL");
                     stmt.execute("PRAGMA busy_timeout=5000");
                     stmt.execute(
@@ -44,6 +48,11 @@ public final class SQLiteStepStore {
                                     "output TEXT," +
                                     "updated_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP," +
                                     "PRIMARY KEY (workflow_id, step_key))");
+                    // One row per workflow whose run returned normally; only these are eligible for retention
+                    stmt.execute(
+                            "CREATE TABLE IF NOT EXISTS workflows (" +
+                                    "workflow_id TEXT PRIMARY KEY," +
+                                    "completed_at TIMESTAMP NOT NULL)");
                 }
                 return null;
             } catch (SQLException e) {
@@ -52,6 +61,7 @@ public final class SQLiteStepStore {
         });
     }
 
+    @Override
     public Optional<StepRecord> find(String workflowId, String stepKey) {
         return withRetry(conn -> {
             try {
@@ -62,14 +72,7 @@ public final class SQLiteStepStore {
         });
     }
 
-    void insertInProgress(StepRecord record, Connection conn) throws SQLException {
-        insert(record, conn);
-    }
-
-    void updateStatus(StepRecord record, Connection conn) throws SQLException {
-        update(record, conn);
-    }
-
+    @Override
     public void insertInProgress(StepRecord record) {
         withRetry(conn -> {
             try {
@@ -80,6 +83,7 @@ public final class SQLiteStepStore {
         });
     }
 
+    @Override
     public void updateStatus(StepRecord record) {
         withRetry(conn -> {
             try {
@@ -90,6 +94,7 @@ public final class SQLiteStepStore {
         });
     }
 
+    @Override
     public void markFailedIfStale(StepRecord record) {
         Instant cutoff = Instant.now().minus(staleInProgressAfter);
         if (record.getStatus() == StepStatus.IN_PROGRESS && record.getUpdatedAt().isBefore(cutoff)) {
@@ -98,7 +103,12 @@ public final class SQLiteStepStore {
         }
     }
 
-    public <T> T withTransaction(SqlFunction<Connection, T> work) {
+    @Override
+    public <T> T withTransaction(TransactionalWork<T> work) {
+        return inTransaction(conn -> work.apply(new ConnectionTransaction(conn)));
+    }
+
+    private <T> T inTransaction(SqlFunction<Connection, T> work) {
         return withRetry(conn -> {
             try {
                 conn.setAutoCommit(false);
@@ -129,6 +139,123 @@ public final class SQLiteStepStore {
         });
     }
 
+    @Override
+    public void markWorkflowStarted(String workflowId) {
+        withRetry(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement("DELETE FROM workflows WHERE workflow_id=?")) {
+                ps.setString(1, workflowId);
+                ps.executeUpdate();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void markWorkflowCompleted(String workflowId, Instant completedAt) {
+        withRetry(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT OR REPLACE INTO workflows (workflow_id, completed_at) VALUES (?, ?)")) {
+                ps.setString(1, workflowId);
+                ps.setTimestamp(2, Timestamp.from(completedAt));
+                ps.executeUpdate();
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public List<String> findExpiredWorkflows(Instant cutoff, String afterWorkflowId, int limit) {
+        return withRetry(conn -> {
+            // Walks the primary key from the cursor, so a full pass reads each marker once
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT workflow_id FROM workflows WHERE workflow_id > ? AND completed_at < ? " +
+                            "ORDER BY workflow_id LIMIT ?")) {
+                ps.setString(1, afterWorkflowId == null ? "" : afterWorkflowId);
+                ps.setTimestamp(2, Timestamp.from(cutoff));
+                ps.setInt(3, limit);
+                List<String> workflowIds = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        workflowIds.add(rs.getString(1));
+                    }
+                }
+                return workflowIds;
+            }
+        });
+    }
+
+    @Override
+    public List<StepRecord> findByWorkflow(String workflowId) {
+        return withRetry(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "SELECT workflow_id, step_key, step_id, sequence, status, output, updated_at " +
+                            "FROM steps WHERE workflow_id=? ORDER BY sequence")) {
+                ps.setString(1, workflowId);
+                List<StepRecord> records = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        records.add(mapRow(rs));
+                    }
+                }
+                return records;
+            }
+        });
+    }
+
+    @Override
+    public int backfillCompletionMarkers(Instant cutoff) {
+        return withRetry(conn -> {
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO workflows (workflow_id, completed_at) " +
+                            "SELECT workflow_id, MAX(updated_at) FROM steps " +
+                            "WHERE workflow_id NOT IN (SELECT workflow_id FROM workflows) " +
+                            "GROUP BY workflow_id HAVING MAX(updated_at) < ?")) {
+                ps.setTimestamp(1, Timestamp.from(cutoff));
+                return ps.executeUpdate();
+            }
+        });
+    }
+
+    /**
+     * Deletes the given workflows in one short transaction.
+     */
+    @Override
+    public int deleteExpiredWorkflows(List<String> workflowIds, Instant cutoff) {
+        return inTransaction(conn -> {
+            int deleted = 0;
+            try (PreparedStatement marker = conn.prepareStatement(
+                    "DELETE FROM workflows WHERE workflow_id=? AND completed_at < ?");
+                 PreparedStatement steps = conn.prepareStatement("DELETE FROM steps WHERE workflow_id=?")) {
+                for (String workflowId : workflowIds) {
+                    marker.setString(1, workflowId);
+                    marker.setTimestamp(2, Timestamp.from(cutoff));
+                    if (marker.executeUpdate() == 0) {
+                        continue;
+                    }
+                    steps.setString(1, workflowId);
+                    steps.executeUpdate();
+                    deleted++;
+                }
+            }
+            return deleted;
+        });
+    }
+
+    /**
+     * Returns up to {@code pages} free pages to the filesystem and checkpoints the WAL without
+     * waiting on readers or writers.
+     */
+    @Override
+    public void reclaimSpace(int pages) {
+        withRetry(conn -> {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("PRAGMA incremental_vacuum(" + pages + ")");
+                stmt.execute("PRAGMA wal_checkpoint(PASSIVE)");
+            }
+            return null;
+        });
+    }
+
     private StepRecord mapRow(ResultSet rs) throws SQLException {
         return new StepRecord(
                 rs.getString("workflow_id"),
@@ -140,7 +267,7 @@ public final class SQLiteStepStore {
                 rs.getTimestamp("updated_at").toInstant());
     }
 
-    Optional<StepRecord> select(String workflowId, String stepKey, Connection conn) throws SQLException {
+    private Optional<StepRecord> select(String workflowId, String stepKey, Connection conn) throws SQLException {
         try (PreparedStatement ps = conn.prepareStatement(
                 "SELECT workflow_id, step_key, step_id, sequence, status, output, updated_at " +
                         "FROM steps WHERE workflow_id=? AND step_key=?")) {
@@ -214,6 +341,29 @@ public final class SQLiteStepStore {
         return "SQLITE_BUSY".equals(e.getSQLState()) || (e.getMessage() != null && e.getMessage().contains("database is locked"));
     }
 
+    private final class ConnectionTransaction implements Transaction {
+        private final Connection conn;
+
+        private ConnectionTransaction(Connection conn) {
+            this.conn = conn;
+        }
+
+        @Override
+        public Optional<StepRecord> select(String workflowId, String stepKey) throws SQLException {
+            return SQLiteStepStore.this.select(workflowId, stepKey, conn);
+        }
+
+        @Override
+        public void insertInProgress(StepRecord record) throws SQLException {
+            insert(record, conn);
+        }
+
+        @Override
+        public void updateStatus(StepRecord record) throws SQLException {
+            update(record, conn);
+        }
+    }
+
     @FunctionalInterface
     interface SqlFunction<T, R> {
         R apply(T t) throws SQLException;
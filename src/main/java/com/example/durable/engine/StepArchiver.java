@@ -0,0 +1,132 @@
+package com.example.durable.engine;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+/**
+ * Exports purged steps as gzip-compressed JSON-lines files, one immutable file per batch. A batch is
+ * written to a temporary file, fsynced and then renamed into place, so a crash mid-write never leaves
+ * a truncated archive behind; at worst an orphaned {@code .tmp} file, whose rows are still in the store.
+ *
+ * <p>Several compactions may share an archive directory, in this process or in others. Writing a batch
+ * and clearing orphans both happen under {@code archive.lock}, so one never deletes or overwrites the
+ * files of another.
+ */
+public final class StepArchiver {
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String LOCK_FILE = "archive.lock";
+    // File locks are held per process, so threads of this process are serialized separately
+    private static final Map<Path, Object> DIRECTORY_MONITORS = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final Object monitor;
+    private final ObjectMapper mapper;
+
+    public StepArchiver(Path directory) {
+        this.directory = directory;
+        this.monitor = DIRECTORY_MONITORS.computeIfAbsent(directory.toAbsolutePath().normalize(), d -> new Object());
+        this.mapper = new ObjectMapper();
+        mapper.registerModule(new JavaTimeModule());
+        mapper.disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+        try {
+            Files.createDirectories(directory);
+            withDirectoryLock(() -> {
+                deleteOrphanedTempFiles();
+                return null;
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to prepare archive directory " + directory, e);
+        }
+    }
+
+    public Path append(List<StepRecord> records) {
+        try {
+            return withDirectoryLock(() -> write(records));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to archive steps to " + directory, e);
+        }
+    }
+
+    private Path write(List<StepRecord> records) throws IOException {
+        Path tmp = Files.createTempFile(directory, "steps-", TMP_SUFFIX);
+        try {
+            try (FileOutputStream fos = new FileOutputStream(tmp.toFile());
+                 GZIPOutputStream gzip = new GZIPOutputStream(fos)) {
+                for (StepRecord record : records) {
+                    gzip.write(mapper.writeValueAsString(record).getBytes(StandardCharsets.UTF_8));
+                    gzip.write('\n');
+                }
+                gzip.finish();
+                // Rows are deleted right after this returns, so the export must be on disk first
+                fos.getFD().sync();
+            }
+            // The rename replaces an existing file; the directory lock keeps the name free until it is done
+            Path file = nextArchiveFile();
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+            try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+                dir.force(true);
+            }
+            return file;
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // the orphan is removed on the next start
+            }
+            throw e;
+        }
+    }
+
+    private Path nextArchiveFile() {
+        String prefix = "steps-" + LocalDate.now(ZoneOffset.UTC) + "-" + System.currentTimeMillis();
+        Path file = directory.resolve(prefix + ".jsonl.gz");
+        for (int i = 1; Files.exists(file); i++) {
+            file = directory.resolve(prefix + "-" + i + ".jsonl.gz");
+        }
+        return file;
+    }
+
+    /**
+     * Only called under the directory lock, so every temp file left is from a writer that died.
+     */
+    private void deleteOrphanedTempFiles() throws IOException {
+        try (DirectoryStream<Path> orphans = Files.newDirectoryStream(directory, "*" + TMP_SUFFIX)) {
+            for (Path orphan : orphans) {
+                Files.delete(orphan);
+            }
+        }
+    }
+
+    private <T> T withDirectoryLock(IoSupplier<T> action) throws IOException {
+        synchronized (monitor) {
+            try (FileChannel lock = FileChannel.open(directory.resolve(LOCK_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // Released when the channel is closed
+                lock.lock();
+                return action.get();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface IoSupplier<T> {
+        T get() throws IOException;
+    }
+}
@@ -15,13 +15,13 @@ public final class StepExecutor {
     private static final Logger log = LoggerFactory.getLogger(StepExecutor.class);
 
     private final String workflowId;
-    private final SQLiteStepStore store;
+    private final StepStore store;
     private final SequenceTracker sequenceTracker;
     private final StepResultSerializer serializer;
     private final CrashSimulator crashSimulator;
     private final ObjectMapper mapper = new ObjectMapper();
 
-    public StepExecutor(String workflowId, SQLiteStepStore store, SequenceTracker sequenceTracker,
+    public StepExecutor(String workflowId, StepStore store, SequenceTracker sequenceTracker,
                         StepResultSerializer serializer, CrashSimulator crashSimulator) {
         this.workflowId = workflowId;
         this.store = store;
@@ -51,9 +51,9 @@ public final class StepExecutor {
     private <T> T execute(long sequence, String stepId, JavaType type, Callable<T> fn) throws Exception {
         String stepKey = workflowId + ":" + sequence;
 
-        return store.withTransaction(conn -> {
+        return store.withTransaction(tx -> {
             try {
-                Optional<StepRecord> existing = store.select(workflowId, stepKey, conn);
+                Optional<StepRecord> existing = tx.select(workflowId, stepKey);
                 if (existing.isPresent()) {
                     StepRecord record = existing.get();
                     if (record.getStatus() == StepStatus.IN_PROGRESS) {
@@ -66,13 +66,13 @@ public final class StepExecutor {
                 }
 
                 StepRecord inProgress = new StepRecord(workflowId, stepKey, stepId, sequence, StepStatus.IN_PROGRESS, null, null);
-                store.insertInProgress(inProgress, conn);
+                tx.insertInProgress(inProgress);
                 crashSimulator.afterStepStarted();
 
                 T result = fn.call();
                 String output = serializer.serialize(result);
                 StepRecord completed = inProgress.withStatus(StepStatus.COMPLETED, output);
-                store.updateStatus(completed, conn);
+                tx.updateStatus(completed);
                 return result;
             } catch (Exception e) {
                 if (isBusy(e)) {
@@ -83,7 +83,7 @@ public final class StepExecutor {
                 }
                 try {
                     StepRecord failed = new StepRecord(workflowId, stepKey, stepId, sequence, StepStatus.FAILED, null, null);
-                    store.updateStatus(failed, conn);
+                    tx.updateStatus(failed);
                 } catch (Exception ignored) {
                     log.error("Failed to mark step as FAILED", ignored);
                 }
@@ -95,7 +95,7 @@ public final class StepExecutor {
     private boolean isBusy(Exception e) {
         Throwable t = e;
         while (t != null) {
-            if (t instanceof SQLException se && "SQLITE_BUSY".equals(se.getSQLState()) ||
+            if (t instanceof SQLException se && StepStore.BUSY_SQL_STATE.equals(se.getSQLState()) ||
                     (t.getMessage() != null && t.getMessage().contains("database is locked"))) {
                 return true;
             }
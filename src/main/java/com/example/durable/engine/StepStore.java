@@ -0,0 +1,86 @@
+package com.example.durable.engine;
+
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Persistence contract used by {@link StepExecutor}. Implementations must make the work passed to
+ * {@link #withTransaction} atomic: either every write made through the {@link Transaction} becomes
+ * visible, or none does.
+ */
+public interface StepStore {
+    /**
+     * SQL state of a {@link SQLException} thrown from a {@link Transaction} when another transaction holds
+     * the step; the store retries the whole unit of work after a backoff.
+     */
+    String BUSY_SQL_STATE = "SQLITE_BUSY";
+
+    Optional<StepRecord> find(String workflowId, String stepKey);
+
+    void insertInProgress(StepRecord record);
+
+    void updateStatus(StepRecord record);
+
+    void markFailedIfStale(StepRecord record);
+
+    <T> T withTransaction(TransactionalWork<T> work);
+
+    /**
+     * Clears the completion marker, so a workflow that is being resumed is never purged mid-run.
+     */
+    void markWorkflowStarted(String workflowId);
+
+    /**
+     * Records that the workflow's run returned normally; only marked workflows are subject to retention.
+     */
+    void markWorkflowCompleted(String workflowId, Instant completedAt);
+
+    /**
+     * Returns workflows marked completed before {@code cutoff}, in id order, starting after
+     * {@code afterWorkflowId} ({@code null} for the first page).
+     */
+    List<String> findExpiredWorkflows(Instant cutoff, String afterWorkflowId, int limit);
+
+    List<StepRecord> findByWorkflow(String workflowId);
+
+    /**
+     * Writes a completion marker, dated at the workflow's latest step update, for every workflow that has
+     * steps but no marker and has not been touched since {@code cutoff}. Meant for histories written
+     * before markers existed: a crashed workflow looks the same, so the caller asserts that all of these
+     * workflows are finished.
+     *
+     * @return number of markers written
+     */
+    int backfillCompletionMarkers(Instant cutoff);
+
+    /**
+     * Deletes the given workflows together with their completion markers. A workflow whose marker was
+     * cleared or renewed since it was selected is left untouched.
+     *
+     * @return number of workflows actually deleted
+     */
+    int deleteExpiredWorkflows(List<String> workflowIds, Instant cutoff);
+
+    /**
+     * Hands space freed by deletes back to the storage, doing at most {@code pages} units of work.
+     */
+    void reclaimSpace(int pages);
+
+    /**
+     * Store operations bound to an open transaction.
+     */
+    interface Transaction {
+        Optional<StepRecord> select(String workflowId, String stepKey) throws SQLException;
+
+        void insertInProgress(StepRecord record) throws SQLException;
+
+        void updateStatus(StepRecord record) throws SQLException;
+    }
+
+    @FunctionalInterface
+    interface TransactionalWork<T> {
+        T apply(Transaction tx) throws SQLException;
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.durable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.Test;
+
+import com.example.durable.engine.HistoryCompactor;
+import com.example.durable.engine.RetentionPolicy;
+import com.example.durable.engine.SQLiteStepStore;
+import com.example.durable.engine.StepArchiver;
+import com.example.durable.engine.StepRecord;
+import com.example.durable.engine.StepStatus;
+
+class HistoryCompactorTest {
+    // Everything written during a test finished before this cutoff
+    private static final Duration AHEAD = Duration.ofMinutes(1);
+
+    @Test
+    void archivesCompletedWorkflowsAndKeepsUnfinishedOnes() throws Exception {
+        SQLiteStepStore store = newStore();
+        Path archiveDir = Files.createTempDirectory("durable-archive");
+        WorkflowRunner runner = new WorkflowRunner(store);
+        AtomicInteger counter = new AtomicInteger();
+
+        runner.start("done", twoSteps(counter, false), 0);
+        assertThrows(RuntimeException.class, () -> runner.start("broken", twoSteps(counter, true), 0));
+        assertEquals(4, counter.get());
+
+        HistoryCompactor compactor = new HistoryCompactor(store, new RetentionPolicy(Duration.ZERO, 1, archiveDir));
+        assertEquals(1, compactor.compact(Instant.now().plus(AHEAD)));
+        assertEquals(2, countArchivedLines(archiveDir));
+
+        // The unfinished workflow kept its first step, so only the failing step runs again
+        assertThrows(RuntimeException.class, () -> runner.resume("broken", twoSteps(counter, true), 0));
+        assertEquals(5, counter.get());
+    }
+
+    @Test
+    void archivesEachBatchToItsOwnFile() throws Exception {
+        SQLiteStepStore store = newStore();
+        Path archiveDir = Files.createTempDirectory("durable-archive");
+        // Left behind by a crash mid-archive; its rows were never deleted
+        Files.write(archiveDir.resolve("steps-batch.tmp"), new byte[] {0x1f, (byte) 0x8b, 0x08});
+        WorkflowRunner runner = new WorkflowRunner(store);
+        for (int i = 0; i < 3; i++) {
+            runner.start("wf" + i, twoSteps(new AtomicInteger(), false), 0);
+        }
+
+        HistoryCompactor compactor = new HistoryCompactor(store, new RetentionPolicy(Duration.ZERO, 1, archiveDir));
+        assertEquals(3, compactor.compact(Instant.now().plus(AHEAD)));
+
+        assertEquals(3, archives(archiveDir).size());
+        assertEquals(0, tempFiles(archiveDir));
+        assertEquals(6, countArchivedLines(archiveDir));
+    }
+
+    @Test
+    void concurrentArchiversNeverClobberEachOther() throws Exception {
+        Path archiveDir = Files.createTempDirectory("durable-archive");
+        StepRecord record = new StepRecord("wf1", "wf1:0", "a", 0, StepStatus.COMPLETED, "1", Instant.now());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            // Each compaction clears orphans on start while the others are mid-write
+            threads.add(new Thread(() -> {
+                StepArchiver archiver = new StepArchiver(archiveDir);
+                for (int i = 0; i < 25; i++) {
+                    archiver.append(List.of(record));
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(100, archives(archiveDir).size());
+        assertEquals(0, tempFiles(archiveDir));
+        assertEquals(100, countArchivedLines(archiveDir));
+    }
+
+    @Test
+    void dropModePurgesWithoutArchiving() throws Exception {
+        SQLiteStepStore store = newStore();
+        WorkflowRunner runner = new WorkflowRunner(store);
+        AtomicInteger counter = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            runner.start("wf" + i, twoSteps(counter, false), 0);
+        }
+
+        HistoryCompactor compactor = new HistoryCompactor(store, new RetentionPolicy(Duration.ZERO, 2, null));
+        assertEquals(5, compactor.compact(Instant.now().plus(AHEAD)));
+        assertEquals(0, store.findByWorkflow("wf0").size());
+        assertEquals(0, compactor.compact(Instant.now().plus(AHEAD)));
+    }
+
+    @Test
+    void keepsWorkflowsInsideRetentionWindow() throws Exception {
+        SQLiteStepStore store = newStore();
+        WorkflowRunner runner = new WorkflowRunner(store);
+        runner.start("recent", twoSteps(new AtomicInteger(), false), 0);
+
+        assertEquals(0, runner.compactHistory(new RetentionPolicy(Duration.ofDays(1), 10, null)));
+        assertEquals(2, store.findByWorkflow("recent").size());
+    }
+
+    @Test
+    void keepsWorkflowResumedBetweenSelectAndDelete() throws Exception {
+        SQLiteStepStore store = newStore();
+        WorkflowRunner runner = new WorkflowRunner(store);
+        runner.start("wf1", twoSteps(new AtomicInteger(), false), 0);
+
+        Instant cutoff = Instant.now().plus(AHEAD);
+        List<String> expired = store.findExpiredWorkflows(cutoff, null, 10);
+        assertEquals(List.of("wf1"), expired);
+
+        store.markWorkflowStarted("wf1");
+        assertEquals(0, store.deleteExpiredWorkflows(expired, cutoff));
+        assertEquals(2, store.findByWorkflow("wf1").size());
+    }
+
+    @Test
+    void backfillExpiresHistoryWrittenBeforeMarkers() throws Exception {
+        SQLiteStepStore store = newStore();
+        WorkflowRunner runner = new WorkflowRunner(store);
+        // Steps written by a version without completion markers
+        Instant longAgo = Instant.now().minus(Duration.ofDays(10));
+        store.insertInProgress(new StepRecord("legacy", "legacy:0", "a", 0, StepStatus.COMPLETED, "1", longAgo));
+        store.insertInProgress(new StepRecord("idle", "idle:0", "a", 0, StepStatus.COMPLETED, "1", Instant.now()));
+        RetentionPolicy policy = new RetentionPolicy(Duration.ofDays(1), 10, null);
+
+        assertEquals(0, runner.compactHistory(policy));
+        assertEquals(1, store.findByWorkflow("legacy").size());
+
+        // Only workflows idle for longer than the retention window are assumed finished
+        assertEquals(1, runner.compactHistory(policy, true));
+        assertEquals(0, store.findByWorkflow("legacy").size());
+        assertEquals(1, store.findByWorkflow("idle").size());
+    }
+
+    @Test
+    void rejectsNegativeRetention() {
+        assertThrows(IllegalArgumentException.class, () -> new RetentionPolicy(Duration.ofDays(-1), 10, null));
+    }
+
+    private static SQLiteStepStore newStore() throws IOException {
+        Path db = Files.createTempFile("durable-test", ".db");
+        return new SQLiteStepStore("jdbc:sqlite:" + db.toAbsolutePath(), Duration.ofSeconds(5));
+    }
+
+    private static Workflow twoSteps(AtomicInteger counter, boolean failSecond) {
+        return ctx -> {
+            ctx.step("first", Integer.class, counter::incrementAndGet);
+            ctx.step("second", Integer.class, () -> {
+                counter.incrementAndGet();
+                if (failSecond) {
+                    throw new IllegalStateException("boom");
+                }
+                return 0;
+            });
+        };
+    }
+
+    private static List<Path> archives(Path archiveDir) throws IOException {
+        try (Stream<Path> files = Files.list(archiveDir)) {
+            return files.filter(p -> p.toString().endsWith(".jsonl.gz")).collect(Collectors.toList());
+        }
+    }
+
+    private static long tempFiles(Path archiveDir) throws IOException {
+        try (Stream<Path> files = Files.list(archiveDir)) {
+            return files.filter(p -> p.toString().endsWith(".tmp")).count();
+        }
+    }
+
+    private static long countArchivedLines(Path archiveDir) throws IOException {
+        long lines = 0;
+        for (Path archive : archives(archiveDir)) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(archive)), StandardCharsets.UTF_8))) {
+                lines += reader.lines().count();
+            }
+        }
+        return lines;
+    }
+}
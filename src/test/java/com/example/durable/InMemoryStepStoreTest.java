@@ -0,0 +1,254 @@
+package com.example.durable;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+import com.example.durable.engine.HistoryCompactor;
+import com.example.durable.engine.InMemoryStepStore;
+import com.example.durable.engine.RetentionPolicy;
+
+class InMemoryStepStoreTest {
+    private static final Duration STALE = Duration.ofSeconds(5);
+    // Long enough that only explicit flush() calls reach the disk during a test
+    private static final Duration NEVER = Duration.ofHours(1);
+    // Everything written during a test finished before now plus this
+    private static final Duration AHEAD = Duration.ofMinutes(1);
+
+    @Test
+    void reusesCompletedStep() throws Exception {
+        WorkflowRunner runner = new WorkflowRunner(new InMemoryStepStore(STALE));
+        AtomicInteger counter = new AtomicInteger();
+
+        Workflow workflow = ctx -> ctx.step("once", Integer.class, counter::incrementAndGet);
+
+        runner.start("wf1", workflow, 0);
+        runner.resume("wf1", workflow, 0);
+
+        assertEquals(1, counter.get());
+    }
+
+    @Test
+    void failedStepLeavesNothingBehind() {
+        InMemoryStepStore store = new InMemoryStepStore(STALE);
+        WorkflowRunner runner = new WorkflowRunner(store);
+
+        assertThrows(RuntimeException.class, () -> runner.start("wf1", ctx -> ctx.step("boom", Integer.class, () -> {
+            throw new IllegalStateException("boom");
+        }), 0));
+
+        assertFalse(store.find("wf1", "wf1:0").isPresent());
+    }
+
+    @Test
+    void concurrentRunnersExecuteStepOnce() throws Exception {
+        InMemoryStepStore store = new InMemoryStepStore(STALE);
+        AtomicInteger counter = new AtomicInteger();
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread first = new Thread(() -> run(store, "wf1", ctx -> ctx.step("once", Integer.class, () -> {
+            entered.countDown();
+            release.await();
+            return counter.incrementAndGet();
+        })));
+        first.start();
+        entered.await();
+
+        Thread second = new Thread(() -> run(store, "wf1", ctx -> ctx.step("once", Integer.class, counter::incrementAndGet)));
+        second.start();
+        // The second runner waits on the first one's claim instead of running the step itself
+        second.join(200);
+        assertTrue(second.isAlive());
+
+        release.countDown();
+        first.join();
+        second.join();
+        assertEquals(1, counter.get());
+    }
+
+    @Test
+    void recoversFlushedWritesAfterCrash() throws Exception {
+        Path dir = Files.createTempDirectory("durable-snapshot");
+        AtomicInteger counter = new AtomicInteger();
+        Workflow workflow = ctx -> ctx.step("once", Integer.class, counter::incrementAndGet);
+
+        Path crashed;
+        try (InMemoryStepStore store = new InMemoryStepStore(STALE, dir, NEVER)) {
+            new WorkflowRunner(store).start("wf1", workflow, 0);
+            store.flush();
+            crashed = copyOf(dir);
+        }
+
+        try (InMemoryStepStore recovered = new InMemoryStepStore(STALE, crashed, NEVER)) {
+            new WorkflowRunner(recovered).resume("wf1", workflow, 0);
+        }
+        assertEquals(1, counter.get());
+    }
+
+    @Test
+    void writesAfterTornLogLineSurviveNextRestart() throws Exception {
+        Path dir = Files.createTempDirectory("durable-snapshot");
+        Path crashed;
+        try (InMemoryStepStore store = new InMemoryStepStore(STALE, dir, NEVER)) {
+            new WorkflowRunner(store).start("wfA", ctx -> ctx.step("a", Integer.class, () -> 1), 0);
+            store.flush();
+            crashed = copyOf(dir);
+        }
+        Files.write(crashed.resolve("steps.log"), "{\"workflowId\":\"wfA\",\"stepK".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        Path crashedAgain;
+        try (InMemoryStepStore recovered = new InMemoryStepStore(STALE, crashed, NEVER)) {
+            new WorkflowRunner(recovered).start("wfB", ctx -> ctx.step("b", Integer.class, () -> 2), 0);
+            recovered.flush();
+            crashedAgain = copyOf(crashed);
+        }
+
+        try (InMemoryStepStore reopened = new InMemoryStepStore(STALE, crashedAgain, NEVER)) {
+            assertTrue(reopened.find("wfA", "wfA:0").isPresent());
+            assertTrue(reopened.find("wfB", "wfB:0").isPresent());
+        }
+    }
+
+    @Test
+    void snapshotRotatesLogAndLeftoverRotatedLogIsRecovered() throws Exception {
+        Path dir = Files.createTempDirectory("durable-snapshot");
+        Path leftover;
+        try (InMemoryStepStore store = new InMemoryStepStore(STALE, dir, NEVER)) {
+            WorkflowRunner runner = new WorkflowRunner(store);
+            runner.start("wf1", ctx -> ctx.step("a", Integer.class, () -> 1), 0);
+            store.snapshot();
+            runner.start("wf2", ctx -> ctx.step("b", Integer.class, () -> 2), 0);
+            store.flush();
+
+            // Only writes made after the snapshot are left in the log
+            List<String> log = Files.readAllLines(dir.resolve("steps.log"));
+            assertTrue(log.stream().allMatch(line -> line.contains("wf2")));
+            leftover = copyOf(dir);
+        }
+
+        // An earlier snapshot failed after rotating: all that is left of wf2 is the rotated log
+        Files.delete(leftover.resolve("snapshot.jsonl"));
+        Files.move(leftover.resolve("steps.log"), leftover.resolve("steps.log.old"));
+        try (InMemoryStepStore recovered = new InMemoryStepStore(STALE, leftover, NEVER)) {
+            assertTrue(recovered.find("wf2", "wf2:0").isPresent());
+        }
+    }
+
+    @Test
+    void rejectsInvalidFlushIntervalBeforeTouchingDirectory() throws Exception {
+        Path dir = Files.createTempDirectory("durable-snapshot");
+        Files.writeString(dir.resolve("steps.log"), "{\"workflowId\":\"wf1\",\"stepK");
+
+        assertThrows(IllegalArgumentException.class, () -> new InMemoryStepStore(STALE, dir, Duration.ZERO));
+        assertThrows(NullPointerException.class, () -> new InMemoryStepStore(STALE, dir, null));
+
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(List.of(dir.resolve("steps.log")), files.toList());
+        }
+    }
+
+    @Test
+    void flushNeverFailsWhileSnapshotRotatesLog() throws Exception {
+        Path dir = Files.createTempDirectory("durable-snapshot");
+        try (InMemoryStepStore store = new InMemoryStepStore(STALE, dir, NEVER)) {
+            WorkflowRunner runner = new WorkflowRunner(store);
+            AtomicReference<Throwable> failure = new AtomicReference<>();
+            AtomicBoolean done = new AtomicBoolean();
+            List<Thread> flushers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                flushers.add(new Thread(() -> {
+                    try {
+                        while (!done.get()) {
+                            store.flush();
+                        }
+                    } catch (RuntimeException e) {
+                        failure.set(e);
+                    }
+                }));
+            }
+            flushers.forEach(Thread::start);
+            runner.start("wf1", ctx -> ctx.step("a", Integer.class, () -> 1), 0);
+            for (int i = 0; i < 1000 && failure.get() == null; i++) {
+                store.snapshot();
+            }
+            done.set(true);
+            for (Thread flusher : flushers) {
+                flusher.join();
+            }
+            assertNull(failure.get());
+        }
+    }
+
+    @Test
+    void compactionEvictsFinishedWorkflowsAcrossRestarts() throws Exception {
+        Path dir = Files.createTempDirectory("durable-snapshot");
+        Workflow finishes = ctx -> ctx.step("a", Integer.class, () -> 1);
+        Workflow fails = ctx -> {
+            ctx.step("a", Integer.class, () -> 1);
+            ctx.step("b", Integer.class, () -> {
+                throw new IllegalStateException("boom");
+            });
+        };
+
+        Path crashed;
+        try (InMemoryStepStore store = new InMemoryStepStore(STALE, dir, NEVER)) {
+            WorkflowRunner runner = new WorkflowRunner(store);
+            runner.start("done", finishes, 0);
+            runner.start("purged", finishes, 0);
+            assertThrows(RuntimeException.class, () -> runner.start("broken", fails, 0));
+
+            HistoryCompactor compactor = new HistoryCompactor(store, new RetentionPolicy(Duration.ZERO, 10, null));
+            assertEquals(1, store.deleteExpiredWorkflows(List.of("purged"), Instant.now().plus(AHEAD)));
+            store.flush();
+            crashed = copyOf(dir);
+            assertEquals(1, compactor.compact(Instant.now().plus(AHEAD)));
+        }
+
+        // The completion marker of "done" and the purge of "purged" both come back from the log
+        try (InMemoryStepStore recovered = new InMemoryStepStore(STALE, crashed, NEVER)) {
+            assertEquals(List.of(), recovered.findByWorkflow("purged"));
+            HistoryCompactor compactor = new HistoryCompactor(recovered, new RetentionPolicy(Duration.ZERO, 10, null));
+            assertEquals(1, compactor.compact(Instant.now().plus(AHEAD)));
+            assertFalse(recovered.find("done", "done:0").isPresent());
+            assertTrue(recovered.find("broken", "broken:0").isPresent());
+        }
+    }
+
+    private static void run(InMemoryStepStore store, String workflowId, Workflow workflow) {
+        try {
+            new WorkflowRunner(store).start(workflowId, workflow, 0);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Path copyOf(Path dir) throws IOException {
+        Path copy = Files.createTempDirectory("durable-crash");
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.copy(file, copy.resolve(file.getFileName()));
+            }
+        }
+        return copy;
+    }
+}